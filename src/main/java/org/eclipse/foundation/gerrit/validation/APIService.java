@@ -13,15 +13,32 @@ package org.eclipse.foundation.gerrit.validation;
 import java.util.concurrent.CompletableFuture;
 
 import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Response;
 import retrofit2.http.Body;
+import retrofit2.http.Headers;
 import retrofit2.http.POST;
+import retrofit2.http.Streaming;
 
 interface APIService {
 
   static final HttpUrl BASE_URL = HttpUrl.get("https://api.eclipse.org/");
 
+  static final MediaType NDJSON = MediaType.get("application/x-ndjson");
+
 	@POST("/git/eca")
 	CompletableFuture<Response<ValidationResponse>> validate(
 			@Body ValidationRequest request);
+
+	/**
+	 * Streaming variant of {@link #validate(ValidationRequest)}. The body is newline-delimited JSON
+	 * holding the request (without commits) followed by one commit per line, and the response body
+	 * is newline-delimited JSON of {@link ValidationStreamEvent}, read as the server writes it.
+	 */
+	@Streaming
+	@Headers("Accept: application/x-ndjson")
+	@POST("/git/eca/stream")
+	CompletableFuture<Response<ResponseBody>> validateStream(@Body RequestBody request);
 }
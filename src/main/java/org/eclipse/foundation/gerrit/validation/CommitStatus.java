@@ -46,6 +46,21 @@ public abstract class CommitStatus {
     return builder.toString();
   }
 
+  static Builder builder() {
+    return new AutoValue_CommitStatus.Builder();
+  }
+
+  @AutoValue.Builder
+  abstract static class Builder {
+    public abstract Builder messages(List<CommitStatusMessage> messages);
+
+    public abstract Builder warnings(List<CommitStatusMessage> warnings);
+
+    public abstract Builder errors(List<CommitStatusMessage> errors);
+
+    abstract CommitStatus build();
+  }
+
   /**
    * Represents a message with an associated error or success status code.
    *
@@ -71,5 +86,9 @@ public abstract class CommitStatus {
       builder.append("]");
       return builder.toString();
     }
+
+    static CommitStatusMessage create(int code, String message) {
+      return new AutoValue_CommitStatus_CommitStatusMessage(code, message);
+    }
   }
 }
@@ -10,6 +10,7 @@
 package org.eclipse.foundation.gerrit.validation;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -19,12 +20,17 @@ import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import org.eclipse.foundation.gerrit.validation.CommitStatus.CommitStatusMessage;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gerrit.extensions.annotations.Listen;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.events.CommitReceivedEvent;
 import com.google.gerrit.server.git.validators.CommitValidationException;
 import com.google.gerrit.server.git.validators.CommitValidationListener;
@@ -34,6 +40,7 @@ import com.google.inject.Singleton;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.JsonEncodingException;
 
+import okhttp3.HttpUrl;
 import okhttp3.ResponseBody;
 import okio.BufferedSource;
 import retrofit2.Response;
@@ -50,25 +57,80 @@ import retrofit2.Response;
  * href="http://gerrit-documentation.googlecode.com/svn/Documentation/2.6/dev-plugins.html">Gerrit
  * plugin</a>.
  */
-@Listen
 @Singleton
-public class EclipseCommitValidationListener implements CommitValidationListener {
+public class EclipseCommitValidationListener
+    implements CommitValidationListener, LifecycleListener {
   private static final Logger log = LoggerFactory.getLogger(EclipseCommitValidationListener.class);
   private static final String ECA_DOCUMENTATION = "Please see http://wiki.eclipse.org/ECA";
 
   private final APIService apiService;
+  private final HedgedAPIService hedgedService;
   private final JsonAdapter<ValidationResponse> responseAdapter;
+  private final TrafficRecorder trafficRecorder;
 
   @Inject
-  public EclipseCommitValidationListener() {
+  public EclipseCommitValidationListener(
+      @GerritServerConfig Config gerritConfig,
+      @PluginName String pluginName,
+      SitePaths sitePaths,
+      MetricMaker metricMaker) {
+    this(gerritConfig, pluginName, APIService.BASE_URL, sitePaths.data_dir, metricMaker);
+  }
+
+  /**
+   * Creates a listener validating against the given API, reading its options from the {@code
+   * plugin.<pluginName>} section of the configuration. Relative traffic log paths are resolved
+   * against {@code dataDir}.
+   */
+  EclipseCommitValidationListener(
+      Config config, String pluginName, HttpUrl baseUrl, Path dataDir, MetricMaker metricMaker) {
     RetrofitFactory retrofitFactory = new RetrofitFactory();
-    this.apiService = retrofitFactory.newService(APIService.BASE_URL, APIService.class);
+    APIService service = retrofitFactory.newService(baseUrl, APIService.class);
+    // hedging is opt-in as it can add load on the API
+    if (config.getBoolean("plugin", pluginName, "hedgeRequests", false)) {
+      this.hedgedService =
+          new HedgedAPIService(
+              service,
+              config.getInt("plugin", pluginName, "hedgePercentile", 95),
+              config.getLong("plugin", pluginName, "hedgeMinDelay", 50),
+              config.getLong("plugin", pluginName, "hedgeMaxDelay", 1000),
+              config.getInt("plugin", pluginName, "hedgeBudget", 10),
+              metricMaker);
+      service = this.hedgedService;
+    } else {
+      this.hedgedService = null;
+    }
+    this.apiService = service;
     Optional<JsonAdapter<ValidationResponse>> adapter =
         retrofitFactory.adapter(ValidationResponse.class);
     if (adapter.isEmpty()) {
       throw new IllegalStateException("Cannot process validation responses, not continuing");
     }
     this.responseAdapter = adapter.get();
+    // traffic is only recorded when a log file is configured
+    String recordFile = config.getString("plugin", pluginName, "recordTraffic");
+    this.trafficRecorder =
+        recordFile == null
+            ? null
+            : new TrafficRecorder(
+                dataDir.resolve(recordFile),
+                config.getLong("plugin", pluginName, "recordMaxSize", 64L * 1024 * 1024),
+                config.getInt("plugin", pluginName, "recordMaxFiles", 5));
+  }
+
+  @Override
+  public void start() {
+    // nothing to start, the API clients are created with the listener
+  }
+
+  @Override
+  public void stop() {
+    if (this.hedgedService != null) {
+      this.hedgedService.stop();
+    }
+    if (this.trafficRecorder != null) {
+      this.trafficRecorder.close();
+    }
   }
 
   /**
@@ -77,17 +139,33 @@ public class EclipseCommitValidationListener implements CommitValidationListener
   @Override
   public List<CommitValidationMessage> onCommitReceived(CommitReceivedEvent receiveEvent)
       throws CommitValidationException {
+    // all commits of a push to a ref share the new tip of that ref
+    String pushGroup = receiveEvent.refName + " " + receiveEvent.command.getNewId().name();
+    return validateCommit(
+        receiveEvent.project.getNameKey().toString(), receiveEvent.commit, pushGroup);
+  }
+
+  /**
+   * Validates a single commit pushed to the given project.
+   *
+   * @param projectName the name of the project receiving the commit
+   * @param commit the commit to validate
+   * @param pushGroup identifies the push the commit is part of when recording traffic
+   * @return the messages to report to the pushing client
+   * @throws CommitValidationException if the commit is rejected or could not be validated
+   */
+  List<CommitValidationMessage> validateCommit(
+      String projectName, RevCommit commit, String pushGroup) throws CommitValidationException {
     List<CommitValidationMessage> messages = new ArrayList<>();
     List<String> errors = new ArrayList<>();
 
     // create the request container
     ValidationRequest.Builder req = ValidationRequest.builder();
-    req.repoUrl(receiveEvent.project.getNameKey().toString());
+    req.repoUrl(projectName);
     req.provider("gerrit");
     req.strictMode(true);
 
     // retrieve information about the current commit
-    RevCommit commit = receiveEvent.commit;
     PersonIdent authorIdent = commit.getAuthorIdent();
     PersonIdent committerIdent = commit.getCommitterIdent();
 
@@ -109,25 +187,13 @@ public class EclipseCommitValidationListener implements CommitValidationListener
     if (log.isDebugEnabled()) {
       log.debug("Request object: {}", requestActual);
     }
-    CompletableFuture<Response<ValidationResponse>> futureResponse =
-        this.apiService.validate(requestActual);
+    long startMillis = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
     try {
-      Response<ValidationResponse> rawResponse = futureResponse.get();
-      ValidationResponse response;
-      // handle error responses (okhttp doesn't assume error types)
-      if (rawResponse.isSuccessful()) {
-        response = rawResponse.body();
-      } else {
-        // auto close the response resources after fetching
-        try (ResponseBody err = futureResponse.get().errorBody();
-            BufferedSource src = err.source()) {
-          response = this.responseAdapter.fromJson(src);
-        } catch (JsonEncodingException e) {
-          log.error(e.getMessage(), e);
-          throw new CommitValidationException(
-              "An error happened while retrieving validation response, please contact the administrator if this error persists",
-              e);
-        }
+      ValidationResponse response = fetchResponse(requestActual);
+      if (this.trafficRecorder != null) {
+        this.trafficRecorder.record(
+            startMillis, System.nanoTime() - startNanos, pushGroup, requestActual, response);
       }
       // log if enabled
       if (log.isDebugEnabled()) {
@@ -150,10 +216,15 @@ public class EclipseCommitValidationListener implements CommitValidationListener
           errors.add("An Eclipse Contributor Agreement is required.");
         }
       }
+    } catch (CommitValidationException e) {
+      recordFailure(startMillis, startNanos, pushGroup, requestActual, e);
+      throw e;
     } catch (IOException | ExecutionException e) {
+      recordFailure(startMillis, startNanos, pushGroup, requestActual, e);
       log.error(e.getMessage(), e);
       throw new CommitValidationException("An error happened while checking commit", e);
     } catch (InterruptedException e) {
+      recordFailure(startMillis, startNanos, pushGroup, requestActual, e);
       log.error(e.getMessage(), e);
       Thread.currentThread().interrupt();
       throw new CommitValidationException("Verification of commit has been interrupted", e);
@@ -169,6 +240,46 @@ public class EclipseCommitValidationListener implements CommitValidationListener
     return messages;
   }
 
+  /** Records an exchange that ended without a usable response, when traffic is recorded. */
+  private void recordFailure(
+      long startMillis,
+      long startNanos,
+      String pushGroup,
+      ValidationRequest request,
+      Exception failure) {
+    if (this.trafficRecorder != null) {
+      this.trafficRecorder.recordFailure(
+          startMillis, System.nanoTime() - startNanos, pushGroup, request, failure);
+    }
+  }
+
+  /**
+   * Sends the request to the regular validation endpoint and waits for the full response.
+   *
+   * @param request the request to validate
+   * @return the response of the API, read from the error body for failed validations
+   */
+  private ValidationResponse fetchResponse(ValidationRequest request)
+      throws IOException, ExecutionException, InterruptedException, CommitValidationException {
+    CompletableFuture<Response<ValidationResponse>> futureResponse =
+        this.apiService.validate(request);
+    Response<ValidationResponse> rawResponse = futureResponse.get();
+    // handle error responses (okhttp doesn't assume error types)
+    if (rawResponse.isSuccessful()) {
+      return rawResponse.body();
+    }
+    // auto close the response resources after fetching
+    try (ResponseBody err = rawResponse.errorBody();
+        BufferedSource src = err.source()) {
+      return this.responseAdapter.fromJson(src);
+    } catch (JsonEncodingException e) {
+      log.error(e.getMessage(), e);
+      throw new CommitValidationException(
+          "An error happened while retrieving validation response, please contact the administrator if this error persists",
+          e);
+    }
+  }
+
   /**
    * Creates request representation of the commit, containing information about the current commit
    * and the users associated with it.
@@ -0,0 +1,275 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okhttp3.internal.Util;
+import retrofit2.Response;
+
+/**
+ * Wraps an {@link APIService} and hedges slow validation calls. When the primary call has not
+ * answered within the configured percentile of recently observed latencies, an identical second
+ * call is sent; the first reply wins and the other call is cancelled.
+ *
+ * <p>Validation is side effect free on the API side, which is what makes sending the same POST
+ * twice acceptable. Extra load is capped by a token budget that earns a fraction of a hedge for
+ * every primary call.
+ */
+final class HedgedAPIService implements APIService {
+  private static final Logger log = LoggerFactory.getLogger(HedgedAPIService.class);
+
+  /** Number of recent latencies used to compute the hedge delay. */
+  private static final int LATENCY_WINDOW = 256;
+  /** Samples required before the percentile is trusted over the maximum delay. */
+  private static final int MIN_SAMPLES = 20;
+  /** Maximum number of hedges that can be sent back to back once the budget is full. */
+  private static final double MAX_BUDGET_TOKENS = 10;
+
+  private final APIService delegate;
+  private final ScheduledThreadPoolExecutor scheduler;
+  private final int percentile;
+  private final long minDelayMillis;
+  private final long maxDelayMillis;
+  private final double budgetRatio;
+
+  private final long[] latencies = new long[LATENCY_WINDOW];
+  private int latencyCount;
+  private int latencyNext;
+  private double budgetTokens;
+
+  private final Counter0 requestCount;
+  private final Counter0 hedgeCount;
+  private final Counter0 hedgeWinCount;
+  private final Counter0 budgetExhaustedCount;
+
+  /**
+   * @param delegate the service that performs the actual calls
+   * @param percentile latency percentile (1-99) after which a hedge is sent
+   * @param minDelayMillis lower bound for the hedge delay
+   * @param maxDelayMillis upper bound for the hedge delay, also used until enough samples exist
+   * @param budgetPercent hedges allowed per 100 primary calls
+   * @param metricMaker used to register the hedging metrics
+   */
+  HedgedAPIService(
+      APIService delegate,
+      int percentile,
+      long minDelayMillis,
+      long maxDelayMillis,
+      int budgetPercent,
+      MetricMaker metricMaker) {
+    this.delegate = delegate;
+    this.percentile = Math.max(1, Math.min(99, percentile));
+    this.minDelayMillis = Math.max(0, minDelayMillis);
+    this.maxDelayMillis = Math.max(this.minDelayMillis, maxDelayMillis);
+    this.budgetRatio = Math.max(0, budgetPercent) / 100d;
+
+    this.scheduler =
+        new ScheduledThreadPoolExecutor(1, Util.threadFactory("ECA hedge timer", true));
+    this.scheduler.setRemoveOnCancelPolicy(true);
+
+    this.requestCount =
+        metricMaker.newCounter(
+            "hedge/requests",
+            new Description("Validation calls going through the hedging policy")
+                .setCumulative()
+                .setUnit("requests"));
+    this.hedgeCount =
+        metricMaker.newCounter(
+            "hedge/hedges_sent",
+            new Description("Hedge calls sent because the primary call was slow")
+                .setCumulative()
+                .setUnit("requests"));
+    this.hedgeWinCount =
+        metricMaker.newCounter(
+            "hedge/hedge_wins",
+            new Description("Hedge calls that answered before the primary call")
+                .setCumulative()
+                .setUnit("requests"));
+    this.budgetExhaustedCount =
+        metricMaker.newCounter(
+            "hedge/budget_exhausted",
+            new Description("Hedges skipped because the hedge budget was exhausted")
+                .setCumulative()
+                .setUnit("requests"));
+    metricMaker.newCallbackMetric(
+        "hedge/delay",
+        Long.class,
+        new Description("Current delay before a hedge call is sent")
+            .setGauge()
+            .setUnit(Units.MILLISECONDS),
+        this::hedgeDelayMillis);
+  }
+
+  @Override
+  public CompletableFuture<Response<ValidationResponse>> validate(ValidationRequest request) {
+    if (scheduler.isShutdown()) {
+      // the plugin is stopping, calls still in flight are no longer hedged
+      return delegate.validate(request);
+    }
+    requestCount.increment();
+    depositBudget();
+    Exchange exchange = new Exchange(request);
+    exchange.start(hedgeDelayMillis());
+    return exchange.result;
+  }
+
+  /** Streamed calls report commits as they are validated and are not worth hedging. */
+  @Override
+  public CompletableFuture<Response<ResponseBody>> validateStream(RequestBody request) {
+    return delegate.validateStream(request);
+  }
+
+  /** Stops the hedge timer, pending hedges are no longer sent and later calls are not hedged. */
+  void stop() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Returns the delay after which an unanswered call is hedged, based on the configured percentile
+   * of the recent latency window.
+   */
+  synchronized long hedgeDelayMillis() {
+    if (latencyCount < MIN_SAMPLES) {
+      return maxDelayMillis;
+    }
+    long[] sorted = Arrays.copyOf(latencies, latencyCount);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+    long delay = sorted[Math.max(0, index)];
+    return Math.max(minDelayMillis, Math.min(maxDelayMillis, delay));
+  }
+
+  private synchronized void recordLatency(long millis) {
+    latencies[latencyNext] = millis;
+    latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+    if (latencyCount < LATENCY_WINDOW) {
+      latencyCount++;
+    }
+  }
+
+  private synchronized void depositBudget() {
+    budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + budgetRatio);
+  }
+
+  private synchronized boolean withdrawBudget() {
+    if (budgetTokens < 1) {
+      return false;
+    }
+    budgetTokens -= 1;
+    return true;
+  }
+
+  /** State of a single hedged validation: the primary call, an optional hedge and the result. */
+  private final class Exchange {
+    private final ValidationRequest request;
+    private final CompletableFuture<Response<ValidationResponse>> result =
+        new CompletableFuture<>();
+    private final long startNanos = System.nanoTime();
+
+    private CompletableFuture<Response<ValidationResponse>> primary;
+    private CompletableFuture<Response<ValidationResponse>> hedge;
+    private ScheduledFuture<?> timer;
+    private int pending;
+
+    Exchange(ValidationRequest request) {
+      this.request = request;
+    }
+
+    synchronized void start(long delayMillis) {
+      pending = 1;
+      try {
+        timer = scheduler.schedule(this::sendHedge, delayMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // stopped since the call came in, send the primary call alone
+        timer = null;
+      }
+      primary = send(false);
+    }
+
+    private synchronized void sendHedge() {
+      if (result.isDone()) {
+        return;
+      }
+      if (!withdrawBudget()) {
+        budgetExhaustedCount.increment();
+        return;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Hedging validation call for {}", request.repoUrl());
+      }
+      hedgeCount.increment();
+      pending++;
+      hedge = send(true);
+    }
+
+    private CompletableFuture<Response<ValidationResponse>> send(boolean isHedge) {
+      CompletableFuture<Response<ValidationResponse>> call = delegate.validate(request);
+      call.whenComplete((response, error) -> onComplete(isHedge, response, error));
+      return call;
+    }
+
+    /**
+     * Completes the exchange with the first reply. Each exchange adds a single latency sample,
+     * timed from its start as seen by the caller: the winning reply, or the last failure when no
+     * call answered, which only tells that the API took at least this long. Cancelled losers are
+     * not sampled, as they were not given the chance to answer.
+     */
+    private synchronized void onComplete(
+        boolean isHedge, Response<ValidationResponse> response, Throwable error) {
+      pending--;
+      if (result.isDone()) {
+        return;
+      }
+      if (error != null) {
+        // a failed call only fails the exchange when no other call can still answer
+        if (pending == 0) {
+          recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+          cancelTimer();
+          result.completeExceptionally(error);
+        }
+        return;
+      }
+      recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+      result.complete(response);
+      cancelTimer();
+      if (isHedge) {
+        hedgeWinCount.increment();
+        if (primary != null) {
+          primary.cancel(true);
+        }
+      } else if (hedge != null) {
+        hedge.cancel(true);
+      }
+    }
+
+    private void cancelTimer() {
+      if (timer != null) {
+        timer.cancel(false);
+      }
+    }
+  }
+}
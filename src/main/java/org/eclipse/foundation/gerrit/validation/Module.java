@@ -0,0 +1,28 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.git.validators.CommitValidationListener;
+
+/**
+ * Binds the commit validation listener, and registers it for plugin lifecycle events so that the
+ * threads it starts are stopped when the plugin is unloaded or reloaded.
+ */
+public class Module extends LifecycleModule {
+  @Override
+  protected void configure() {
+    DynamicSet.bind(binder(), CommitValidationListener.class)
+        .to(EclipseCommitValidationListener.class);
+    listener().to(EclipseCommitValidationListener.class);
+  }
+}
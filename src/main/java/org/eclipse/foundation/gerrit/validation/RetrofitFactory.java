@@ -39,7 +39,11 @@ final class RetrofitFactory {
 
   static final String AUTHORIZATION = "Authorization";
 
+  /** Longest wait for the next bytes of a streamed response. */
+  private static final Duration STREAM_READ_TIMEOUT = Duration.ofSeconds(5);
+
   private final OkHttpClient client;
+  private final OkHttpClient streamingClient;
   private final MoshiConverterFactory moshiConverterFactory;
   private final Moshi moshi;
 
@@ -75,19 +79,34 @@ final class RetrofitFactory {
             // TLS_1_0)
             .connectionSpecs(Arrays.asList(ConnectionSpec.COMPATIBLE_TLS, ConnectionSpec.CLEARTEXT))
             .build();
+    // a stream lasts as long as the API takes to validate all commits, only silence is a failure
+    this.streamingClient =
+        this.client
+            .newBuilder()
+            .callTimeout(Duration.ZERO)
+            .readTimeout(STREAM_READ_TIMEOUT)
+            .build();
   }
 
-  private Retrofit newRetrofit(HttpUrl baseUrl) {
+  private Retrofit newRetrofit(HttpUrl baseUrl, OkHttpClient httpClient) {
     return new Retrofit.Builder()
         .baseUrl(baseUrl)
         .callbackExecutor(Executors.newSingleThreadExecutor())
         .addConverterFactory(this.moshiConverterFactory)
-        .client(this.client)
+        .client(httpClient)
         .build();
   }
 
   public <T> T newService(HttpUrl baseUrl, Class<T> serviceClass) {
-    return newRetrofit(baseUrl).create(serviceClass);
+    return newRetrofit(baseUrl, this.client).create(serviceClass);
+  }
+
+  /**
+   * Creates a service for streamed exchanges. Calls have no overall timeout, as reading a stream
+   * takes as long as the server keeps writing, but fail when no bytes arrive for a few seconds.
+   */
+  public <T> T newStreamingService(HttpUrl baseUrl, Class<T> serviceClass) {
+    return newRetrofit(baseUrl, this.streamingClient).create(serviceClass);
   }
 
   /**
@@ -0,0 +1,256 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.JsonEncodingException;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import retrofit2.Response;
+
+/**
+ * Client for the streaming variant of the ECA validation exchange. Commits are sent as
+ * newline-delimited JSON and a {@link CommitStatus} is handed to the caller for every line the
+ * server writes, so that validation can stop at the first failing commit.
+ *
+ * <p>When the API answers in a way that shows it does not know the streaming exchange, the client
+ * disables itself for a while and callers are expected to fall back to {@link
+ * APIService#validate(ValidationRequest)}. Callers also fall back when a stream breaks before its
+ * summary line. Other error statuses are reported like the regular exchange reports them, as
+ * sending the commits again would only add load on an API that is already failing.
+ *
+ * <p>Gerrit validates pushed commits one at a time, so a request only ever carries a single
+ * commit and nothing would be gained from streaming it. The client is therefore not used by
+ * {@link EclipseCommitValidationListener} until requests carry all commits of a push.
+ */
+final class StreamingValidationClient {
+  private static final Logger log = LoggerFactory.getLogger(StreamingValidationClient.class);
+
+  /** Status codes returned by servers that do not implement the streaming exchange. */
+  private static final Set<Integer> UNSUPPORTED_CODES =
+      new HashSet<>(Arrays.asList(404, 405, 406, 415, 501));
+  /** Time after which the streaming exchange is tried again once the API declined it. */
+  private static final long DEFAULT_RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  /** Receives the status of each commit as soon as it has been read from the stream. */
+  @FunctionalInterface
+  interface CommitStatusListener {
+    /**
+     * @param hash the hash of the validated commit
+     * @param status the validation status of the commit
+     * @return true to keep reading the stream, false to stop validation early
+     */
+    boolean onCommitStatus(String hash, CommitStatus status);
+  }
+
+  private final APIService apiService;
+  private final JsonAdapter<ValidationRequest> requestAdapter;
+  private final JsonAdapter<Commit> commitAdapter;
+  private final JsonAdapter<ValidationStreamEvent> eventAdapter;
+  private final JsonAdapter<ValidationResponse> responseAdapter;
+  private final long retryIntervalNanos;
+  private volatile boolean disabled;
+  private volatile long retryAtNanos;
+
+  StreamingValidationClient(HttpUrl baseUrl, RetrofitFactory retrofitFactory) {
+    this(baseUrl, retrofitFactory, DEFAULT_RETRY_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param baseUrl the API to send streamed requests to
+   * @param retryIntervalMillis time after which the streaming exchange is tried again once the
+   *     API declined it
+   */
+  StreamingValidationClient(
+      HttpUrl baseUrl, RetrofitFactory retrofitFactory, long retryIntervalMillis) {
+    this.apiService = retrofitFactory.newStreamingService(baseUrl, APIService.class);
+    this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+    this.responseAdapter = requireAdapter(retrofitFactory, ValidationResponse.class);
+    this.requestAdapter = requireAdapter(retrofitFactory, ValidationRequest.class);
+    this.commitAdapter = requireAdapter(retrofitFactory, Commit.class);
+    this.eventAdapter = requireAdapter(retrofitFactory, ValidationStreamEvent.class);
+  }
+
+  /**
+   * Validates the commits of the request over the streaming exchange.
+   *
+   * @param request the request to validate
+   * @param listener notified of each commit status as it arrives
+   * @return the validation response, or an empty optional if the caller should fall back to the
+   *     regular exchange
+   * @throws IOException if the API answered with an error that is not a validation response
+   * @throws ExecutionException if the call failed
+   * @throws InterruptedException if interrupted while waiting for the call
+   */
+  Optional<ValidationResponse> validate(ValidationRequest request, CommitStatusListener listener)
+      throws IOException, ExecutionException, InterruptedException {
+    if (isDisabled()) {
+      return Optional.empty();
+    }
+    Response<ResponseBody> rawResponse =
+        this.apiService.validateStream(toRequestBody(request)).get();
+    try (ResponseBody body =
+        rawResponse.isSuccessful() ? rawResponse.body() : rawResponse.errorBody()) {
+      if (!rawResponse.isSuccessful()) {
+        if (UNSUPPORTED_CODES.contains(rawResponse.code())) {
+          disable("status " + rawResponse.code());
+          return Optional.empty();
+        }
+        log.warn("Streaming validation failed with status {}", rawResponse.code());
+        return Optional.of(readErrorResponse(body, rawResponse.code()));
+      }
+      MediaType type = body == null ? null : body.contentType();
+      if (type == null || !APIService.NDJSON.subtype().equals(type.subtype())) {
+        disable("content type " + type);
+        return Optional.empty();
+      }
+      try {
+        return Optional.of(readEvents(body.source(), listener));
+      } catch (IOException | JsonDataException e) {
+        log.warn("Validation stream broke before its summary line, falling back", e);
+        return Optional.empty();
+      }
+    }
+  }
+
+  /**
+   * Reads the validation response sent along an error status, as the API does for commits that
+   * fail validation.
+   */
+  private ValidationResponse readErrorResponse(ResponseBody body, int code) throws IOException {
+    ValidationResponse response = null;
+    if (body != null) {
+      try {
+        response = this.responseAdapter.fromJson(body.source());
+      } catch (JsonEncodingException | JsonDataException e) {
+        log.debug("Error body is not a validation response", e);
+      }
+    }
+    if (response == null) {
+      throw new IOException("Streaming validation failed with status " + code);
+    }
+    return response;
+  }
+
+  private ValidationResponse readEvents(BufferedSource source, CommitStatusListener listener)
+      throws IOException {
+    Map<String, CommitStatus> commits = new LinkedHashMap<>();
+    String line;
+    while ((line = source.readUtf8Line()) != null) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      ValidationStreamEvent event = this.eventAdapter.fromJson(line);
+      if (event == null) {
+        continue;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Stream event: {}", event);
+      }
+      if (event.isSummary()) {
+        ValidationResponse summary = event.summary();
+        return ValidationResponse.builder()
+            .passed(summary.passed())
+            .errorCount(summary.errorCount())
+            .time(summary.time())
+            .trackedProject(summary.trackedProject())
+            .commits(commits)
+            .build();
+      }
+      if (event.hash() == null || event.status() == null) {
+        continue;
+      }
+      commits.put(event.hash(), event.status());
+      if (!listener.onCommitStatus(event.hash(), event.status())) {
+        // the rest of the stream is dropped when the body is closed
+        return stoppedEarly(commits);
+      }
+    }
+    throw new IOException("Validation stream ended before its summary line");
+  }
+
+  private RequestBody toRequestBody(ValidationRequest request) throws IOException {
+    // the first line carries the request properties, each following line a single commit
+    ValidationRequest header =
+        ValidationRequest.builder()
+            .repoUrl(request.repoUrl())
+            .provider(request.provider())
+            .strictMode(request.strictMode())
+            .commits(Collections.emptyList())
+            .build();
+    Buffer buffer = new Buffer();
+    this.requestAdapter.toJson(buffer, header);
+    buffer.writeByte('\n');
+    for (Commit commit : request.commits()) {
+      this.commitAdapter.toJson(buffer, commit);
+      buffer.writeByte('\n');
+    }
+    return RequestBody.create(APIService.NDJSON, buffer.readByteString());
+  }
+
+  private static ValidationResponse stoppedEarly(Map<String, CommitStatus> commits) {
+    int errorCount = 0;
+    for (CommitStatus status : commits.values()) {
+      errorCount += status.errors().size();
+    }
+    return ValidationResponse.builder()
+        .passed(false)
+        .errorCount(errorCount)
+        .time(Instant.now().toString())
+        .trackedProject(false)
+        .commits(commits)
+        .build();
+  }
+
+  private boolean isDisabled() {
+    if (disabled && System.nanoTime() - retryAtNanos >= 0) {
+      log.info("Trying streaming validation again");
+      disabled = false;
+    }
+    return disabled;
+  }
+
+  private void disable(String reason) {
+    log.info("Streaming validation is not supported by the API ({}), falling back", reason);
+    retryAtNanos = System.nanoTime() + retryIntervalNanos;
+    disabled = true;
+  }
+
+  private static <T> JsonAdapter<T> requireAdapter(RetrofitFactory retrofitFactory, Class<T> type) {
+    return retrofitFactory
+        .adapter(type)
+        .orElseThrow(
+            () ->
+                new IllegalStateException(
+                    "Cannot process " + type.getSimpleName() + " objects, not continuing"));
+  }
+}
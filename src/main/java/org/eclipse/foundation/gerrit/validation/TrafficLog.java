@@ -0,0 +1,228 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+/**
+ * Binary format of traffic logs. A log starts with a magic number and a format version, followed
+ * by length-prefixed records. Each record holds the timestamp, latency and push group of an
+ * exchange, then the deflated JSON of its request and response. Failed exchanges have a negative
+ * response length followed by the type of the failure instead of a response.
+ *
+ * <p>Logs are only ever appended to. A record cut short by a crash or a failed write, and anything
+ * written after it, is ignored when reading and cut off before the log is appended to again.
+ */
+final class TrafficLog {
+  private static final Logger log = LoggerFactory.getLogger(TrafficLog.class);
+
+  /** "ECAT" in ASCII. */
+  static final int MAGIC = 0x45434154;
+
+  static final short VERSION = 1;
+
+  /** Size of the magic number and version written at the start of each log. */
+  static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+
+  /** Written in place of the response length of failed exchanges. */
+  private static final int FAILED = -1;
+
+  private final JsonAdapter<ValidationRequest> requestAdapter;
+  private final JsonAdapter<ValidationResponse> responseAdapter;
+
+  TrafficLog() {
+    Moshi moshi = new Moshi.Builder().add(JsonAdapterFactory.create()).build();
+    this.requestAdapter = moshi.adapter(ValidationRequest.class);
+    this.responseAdapter = moshi.adapter(ValidationResponse.class);
+  }
+
+  /** Returns the header starting every traffic log. */
+  byte[] header() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Returns the record as appended to a traffic log, including its length prefix. */
+  byte[] encode(TrafficRecord record) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(payload)) {
+      out.writeLong(record.timestamp());
+      out.writeLong(record.latencyNanos());
+      out.writeUTF(record.pushGroup());
+      writeBlob(out, deflate(this.requestAdapter.toJson(record.request())));
+      if (record.failed()) {
+        out.writeInt(FAILED);
+        out.writeUTF(record.failure());
+      } else {
+        writeBlob(out, deflate(this.responseAdapter.toJson(record.response())));
+      }
+    }
+    ByteArrayOutputStream framed = new ByteArrayOutputStream(payload.size() + Integer.BYTES);
+    try (DataOutputStream out = new DataOutputStream(framed)) {
+      out.writeInt(payload.size());
+      payload.writeTo(out);
+    }
+    return framed.toByteArray();
+  }
+
+  /**
+   * Reads all complete records of a traffic log. Anything after the last record that can be
+   * decoded, such as a record cut short by a crash, is ignored.
+   *
+   * @param file the log to read
+   * @return the records in the order they were written
+   * @throws IOException if the file cannot be read or is not a traffic log
+   */
+  List<TrafficRecord> read(Path file) throws IOException {
+    List<TrafficRecord> records = new ArrayList<>();
+    long validLength = scan(file, records);
+    if (validLength < 0) {
+      throw new IOException(file + " is not a supported traffic log");
+    }
+    long size = Files.size(file);
+    if (validLength < size) {
+      log.warn(
+          "Traffic log {} ends with {} bytes that are not a complete record, ignoring them",
+          file,
+          size - validLength);
+    }
+    return records;
+  }
+
+  /**
+   * Returns the length of a traffic log up to the end of its last complete record.
+   *
+   * @param file the log to check
+   * @return the valid length of the log, or -1 if it does not start with a traffic log header
+   * @throws IOException if the file cannot be read
+   */
+  long validLength(Path file) throws IOException {
+    return scan(file, null);
+  }
+
+  private long scan(Path file, List<TrafficRecord> records) throws IOException {
+    long size = Files.size(file);
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      try {
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+          return -1;
+        }
+      } catch (EOFException e) {
+        return -1;
+      }
+      long validLength = HEADER_SIZE;
+      while (true) {
+        byte[] payload;
+        try {
+          int length = in.readInt();
+          // a length running past the end of the file belongs to a partial record
+          if (length <= 0 || length > size - validLength - Integer.BYTES) {
+            return validLength;
+          }
+          payload = new byte[length];
+          in.readFully(payload);
+        } catch (EOFException e) {
+          return validLength;
+        }
+        try {
+          TrafficRecord record = decode(payload);
+          if (records != null) {
+            records.add(record);
+          }
+        } catch (IOException | RuntimeException e) {
+          log.debug("Could not decode traffic record at offset {} of {}", validLength, file, e);
+          return validLength;
+        }
+        validLength += Integer.BYTES + payload.length;
+      }
+    }
+  }
+
+  private TrafficRecord decode(byte[] payload) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+      long timestamp = in.readLong();
+      long latencyNanos = in.readLong();
+      String pushGroup = in.readUTF();
+      ValidationRequest request = this.requestAdapter.fromJson(inflate(readBlob(in)));
+      int responseLength = in.readInt();
+      if (responseLength == FAILED) {
+        return TrafficRecord.createFailed(
+            timestamp, latencyNanos, pushGroup, request, in.readUTF());
+      }
+      ValidationResponse response =
+          this.responseAdapter.fromJson(inflate(readBlob(in, responseLength)));
+      return TrafficRecord.create(timestamp, latencyNanos, pushGroup, request, response);
+    }
+  }
+
+  private static void writeBlob(DataOutputStream out, byte[] blob) throws IOException {
+    out.writeInt(blob.length);
+    out.write(blob);
+  }
+
+  private static byte[] readBlob(DataInputStream in) throws IOException {
+    return readBlob(in, in.readInt());
+  }
+
+  private static byte[] readBlob(DataInputStream in, int length) throws IOException {
+    if (length < 0) {
+      throw new IOException("Invalid blob length " + length);
+    }
+    byte[] blob = new byte[length];
+    in.readFully(blob);
+    return blob;
+  }
+
+  private static byte[] deflate(String json) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+      out.write(json.getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String inflate(byte[] blob) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(blob))) {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
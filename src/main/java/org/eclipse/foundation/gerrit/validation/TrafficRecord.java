@@ -0,0 +1,82 @@
+/**
+ * ***************************************************************************** Copyright (C) 2020
+ * Eclipse Foundation
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ****************************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import com.google.auto.value.AutoValue;
+import com.google.gerrit.common.Nullable;
+
+/**
+ * A sanitized validation exchange captured from production traffic, as stored in a traffic log.
+ */
+@AutoValue
+public abstract class TrafficRecord {
+  /** Time the request was sent, in milliseconds since the epoch. */
+  public abstract long timestamp();
+
+  /** Time spent waiting for the response or the failure, in nanoseconds. */
+  public abstract long latencyNanos();
+
+  /** Identifies the push the validated commits were part of. */
+  public abstract String pushGroup();
+
+  public abstract ValidationRequest request();
+
+  /** The response of the API, or {@code null} when the exchange failed. */
+  @Nullable
+  public abstract ValidationResponse response();
+
+  /** Type of the error that failed the exchange, or {@code null} when a response was read. */
+  @Nullable
+  public abstract String failure();
+
+  public boolean failed() {
+    return failure() != null;
+  }
+
+  static TrafficRecord create(
+      long timestamp,
+      long latencyNanos,
+      String pushGroup,
+      ValidationRequest request,
+      ValidationResponse response) {
+    return new AutoValue_TrafficRecord(
+        timestamp, latencyNanos, pushGroup, request, response, null);
+  }
+
+  static TrafficRecord createFailed(
+      long timestamp,
+      long latencyNanos,
+      String pushGroup,
+      ValidationRequest request,
+      String failure) {
+    return new AutoValue_TrafficRecord(
+        timestamp, latencyNanos, pushGroup, request, null, failure);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("TrafficRecord [timestamp()=");
+    builder.append(timestamp());
+    builder.append(", latencyNanos()=");
+    builder.append(latencyNanos());
+    builder.append(", pushGroup()=");
+    builder.append(pushGroup());
+    builder.append(", request()=");
+    builder.append(request());
+    builder.append(", response()=");
+    builder.append(response());
+    builder.append(", failure()=");
+    builder.append(failure());
+    builder.append("]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,467 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.foundation.gerrit.validation.CommitStatus.CommitStatusMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.common.Nullable;
+
+import okhttp3.internal.Util;
+
+/**
+ * Appends sanitized validation exchanges to a traffic log that can later be replayed with {@link
+ * TrafficReplay}. The log is rotated once it reaches its maximum size, keeping a bounded number of
+ * older logs next to it with a numbered suffix.
+ *
+ * <p>Identities, commit ids and pushes are replaced by pseudonyms that are stable for the lifetime
+ * of the recorder. Commit messages are masked while keeping their length, line structure and
+ * sign-off trailers, and API messages are masked except for the pseudonyms they contain. Exchanges are written by a single background thread; recording failures are
+ * logged and never fail or slow down a push.
+ */
+final class TrafficRecorder {
+  private static final Logger log = LoggerFactory.getLogger(TrafficRecorder.class);
+
+  private static final Pattern TRAILER =
+      Pattern.compile("^([A-Za-z-]+-by):\\s*(.*?)\\s*<([^>]*)>\\s*$");
+  private static final Pattern MAIL = Pattern.compile("[\\w.+-]+@[\\w-]+(\\.[\\w-]+)+");
+  private static final Pattern COMMIT_ID = Pattern.compile("\\b[0-9a-f]{40}\\b");
+  /** Pseudonyms of names, addresses and commit ids, as written by this recorder. */
+  private static final Pattern PSEUDONYM =
+      Pattern.compile("user-[0-9a-f]{12}(@example\\.org)?|\\b[0-9a-f]{40}\\b");
+  /** Names shorter than this are not scrubbed from messages, as they would match common words. */
+  private static final int MIN_SCRUBBED_LENGTH = 3;
+  /** Exchanges waiting to be written, further ones are dropped. */
+  private static final int QUEUE_SIZE = 1024;
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final Path file;
+  private final long maxBytes;
+  private final int maxFiles;
+  private final TrafficLog format = new TrafficLog();
+  private final byte[] salt = new byte[16];
+
+  private final ThreadPoolExecutor writer;
+  private final AtomicLong dropped = new AtomicLong();
+
+  private OutputStream out;
+  private long size;
+
+  /**
+   * @param file the log to append to
+   * @param maxBytes size after which the log is rotated
+   * @param maxFiles number of rotated logs to keep
+   */
+  TrafficRecorder(Path file, long maxBytes, int maxFiles) {
+    this.file = file;
+    this.maxBytes = maxBytes;
+    this.maxFiles = Math.max(0, maxFiles);
+    new SecureRandom().nextBytes(this.salt);
+    this.writer =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE),
+            Util.threadFactory("ECA traffic recorder", true));
+  }
+
+  /**
+   * Queues a validation exchange to be sanitized and appended to the log. The exchange is dropped
+   * when the writer is too far behind, so that recording never holds up a push.
+   *
+   * @param timestamp time the request was sent, in milliseconds since the epoch
+   * @param latencyNanos time spent waiting for the response
+   * @param pushGroup identifies the push the commits are part of
+   * @param request the request sent to the API
+   * @param response the response of the API
+   */
+  void record(
+      long timestamp,
+      long latencyNanos,
+      String pushGroup,
+      ValidationRequest request,
+      ValidationResponse response) {
+    enqueue(() -> write(timestamp, latencyNanos, pushGroup, request, response, null));
+  }
+
+  /**
+   * Queues a validation exchange that failed without a response, such as a timeout or a broken
+   * connection. Only the type of the failure is recorded, as messages can hold host names and
+   * addresses.
+   *
+   * @param timestamp time the request was sent, in milliseconds since the epoch
+   * @param latencyNanos time spent until the exchange failed
+   * @param pushGroup identifies the push the commits are part of
+   * @param request the request sent to the API
+   * @param failure the error that failed the exchange
+   */
+  void recordFailure(
+      long timestamp,
+      long latencyNanos,
+      String pushGroup,
+      ValidationRequest request,
+      Throwable failure) {
+    // futures wrap the error of the call itself
+    Throwable cause =
+        failure instanceof ExecutionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+    String type = cause.getClass().getName();
+    enqueue(() -> write(timestamp, latencyNanos, pushGroup, request, null, type));
+  }
+
+  private void enqueue(Runnable write) {
+    try {
+      this.writer.execute(write);
+    } catch (RejectedExecutionException e) {
+      if (this.dropped.getAndIncrement() == 0) {
+        log.warn("Traffic log {} is not written fast enough, dropping records", this.file);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Could not record validation traffic to {}", this.file, e);
+    }
+  }
+
+  /**
+   * Stops the writer once the queued exchanges are written, and closes the log. Exchanges recorded
+   * afterwards are dropped.
+   */
+  void close() {
+    this.writer.shutdown();
+    try {
+      if (!this.writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        log.warn("Gave up waiting for queued records to be written to {}", this.file);
+        this.writer.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      this.writer.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    closeLog();
+  }
+
+  /** Runs on the writer thread, which is the only one touching the log. */
+  private void write(
+      long timestamp,
+      long latencyNanos,
+      String pushGroup,
+      ValidationRequest request,
+      @Nullable ValidationResponse response,
+      @Nullable String failure) {
+    long droppedRecords = this.dropped.getAndSet(0);
+    if (droppedRecords > 0) {
+      log.warn("Dropped {} records that could not be queued for {}", droppedRecords, this.file);
+    }
+    try {
+      Map<String, String> pseudonyms = new HashMap<>();
+      ValidationRequest sanitizedRequest = sanitize(request, pseudonyms);
+      byte[] record =
+          this.format.encode(
+              response == null
+                  ? TrafficRecord.createFailed(
+                      timestamp, latencyNanos, pseudonymPush(pushGroup), sanitizedRequest, failure)
+                  : TrafficRecord.create(
+                      timestamp,
+                      latencyNanos,
+                      pseudonymPush(pushGroup),
+                      sanitizedRequest,
+                      sanitize(response, pseudonyms)));
+      if (this.out != null && this.size + record.length > this.maxBytes) {
+        rotate();
+      }
+      if (this.out == null) {
+        open();
+      }
+      this.out.write(record);
+      this.out.flush();
+      this.size += record.length;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not record validation traffic to {}", this.file, e);
+      closeLog();
+    }
+  }
+
+  private void open() throws IOException {
+    Path parent = this.file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    if (Files.exists(this.file)) {
+      long validLength = this.format.validLength(this.file);
+      if (validLength < 0) {
+        if (Files.size(this.file) >= TrafficLog.HEADER_SIZE) {
+          log.warn("{} is not a traffic log, rotating it", this.file);
+          rotate();
+        } else {
+          // a header cut short by a crash
+          truncate(0);
+        }
+      } else if (validLength < Files.size(this.file)) {
+        // drop a partial record so that new records are not appended after it
+        log.warn("Truncating incomplete record at the end of traffic log {}", this.file);
+        truncate(validLength);
+      }
+    }
+    this.size = Files.exists(this.file) ? Files.size(this.file) : 0;
+    this.out =
+        new BufferedOutputStream(
+            Files.newOutputStream(
+                this.file, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    if (this.size == 0) {
+      byte[] header = this.format.header();
+      this.out.write(header);
+      this.size = header.length;
+    }
+  }
+
+  private void truncate(long length) throws IOException {
+    try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.WRITE)) {
+      channel.truncate(length);
+    }
+  }
+
+  private void rotate() throws IOException {
+    closeLog();
+    if (this.maxFiles == 0) {
+      Files.deleteIfExists(this.file);
+      return;
+    }
+    // the oldest log is overwritten by the next one in line
+    for (int i = this.maxFiles - 1; i > 0; i--) {
+      Path older = rotated(i);
+      if (Files.exists(older)) {
+        Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    Files.move(this.file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private Path rotated(int index) {
+    return Paths.get(this.file.toString() + "." + index);
+  }
+
+  private void closeLog() {
+    if (this.out != null) {
+      try {
+        this.out.close();
+      } catch (IOException e) {
+        log.warn("Could not close traffic log {}", this.file, e);
+      }
+      this.out = null;
+    }
+  }
+
+  private ValidationRequest sanitize(ValidationRequest request, Map<String, String> pseudonyms) {
+    List<Commit> commits = new ArrayList<>(request.commits().size());
+    for (Commit commit : request.commits()) {
+      commits.add(
+          Commit.builder()
+              .hash(pseudonymId(commit.hash()))
+              .parents(pseudonymIds(commit.parents()))
+              .head(commit.head())
+              .author(pseudonymize(commit.author(), pseudonyms))
+              .committer(pseudonymize(commit.committer(), pseudonyms))
+              .subject(mask(commit.subject()))
+              .body(sanitizeBody(commit.body(), pseudonyms))
+              .build());
+    }
+    return ValidationRequest.builder()
+        .repoUrl(request.repoUrl())
+        .provider(request.provider())
+        .strictMode(request.strictMode())
+        .commits(commits)
+        .build();
+  }
+
+  private ValidationResponse sanitize(ValidationResponse response, Map<String, String> pseudonyms) {
+    Map<String, CommitStatus> commits = new LinkedHashMap<>();
+    for (Map.Entry<String, CommitStatus> entry : response.commits().entrySet()) {
+      CommitStatus status = entry.getValue();
+      commits.put(
+          pseudonymId(entry.getKey()),
+          CommitStatus.builder()
+              .messages(scrub(status.messages(), pseudonyms))
+              .warnings(scrub(status.warnings(), pseudonyms))
+              .errors(scrub(status.errors(), pseudonyms))
+              .build());
+    }
+    return ValidationResponse.builder()
+        .passed(response.passed())
+        .errorCount(response.errorCount())
+        .time(response.time())
+        .trackedProject(response.trackedProject())
+        .commits(commits)
+        .build();
+  }
+
+  private GitUser pseudonymize(GitUser user, Map<String, String> pseudonyms) {
+    return GitUser.builder()
+        .name(pseudonymName(user.name(), pseudonyms))
+        .mail(pseudonymMail(user.mail(), pseudonyms))
+        .build();
+  }
+
+  private String sanitizeBody(String body, Map<String, String> pseudonyms) {
+    String[] lines = body.split("\n", -1);
+    for (int i = 0; i < lines.length; i++) {
+      Matcher trailer = TRAILER.matcher(lines[i]);
+      if (trailer.matches()) {
+        // sign-off trailers are checked by the API, keep them but with pseudonyms
+        lines[i] =
+            String.format(
+                "%1$s: %2$s <%3$s>",
+                trailer.group(1),
+                pseudonymName(trailer.group(2), pseudonyms),
+                pseudonymMail(trailer.group(3), pseudonyms));
+      } else {
+        lines[i] = mask(lines[i]);
+      }
+    }
+    return String.join("\n", lines);
+  }
+
+  /**
+   * Replaces the commit ids, names and addresses of API messages by their pseudonyms, then masks
+   * everything else. Messages can name accounts that are not part of the request, such as the
+   * Eclipse account of an author, which cannot be told apart from plain words.
+   */
+  private List<CommitStatusMessage> scrub(
+      List<CommitStatusMessage> messages, Map<String, String> pseudonyms) {
+    List<CommitStatusMessage> scrubbed = new ArrayList<>(messages.size());
+    for (CommitStatusMessage message : messages) {
+      // ids first, so that names made of hex digits do not break them up
+      Matcher id = COMMIT_ID.matcher(message.message());
+      StringBuffer buffer = new StringBuffer();
+      while (id.find()) {
+        id.appendReplacement(buffer, pseudonymId(id.group()));
+      }
+      id.appendTail(buffer);
+      String text = buffer.toString();
+      for (Map.Entry<String, String> pseudonym : pseudonyms.entrySet()) {
+        if (pseudonym.getKey().length() >= MIN_SCRUBBED_LENGTH) {
+          text = text.replace(pseudonym.getKey(), pseudonym.getValue());
+        }
+      }
+      // catch addresses that were not part of the request
+      Matcher mail = MAIL.matcher(text);
+      buffer = new StringBuffer();
+      while (mail.find()) {
+        String address = mail.group();
+        if (!pseudonyms.containsValue(address)) {
+          address = pseudonymMail(address, pseudonyms);
+        }
+        mail.appendReplacement(buffer, Matcher.quoteReplacement(address));
+      }
+      mail.appendTail(buffer);
+      scrubbed.add(CommitStatusMessage.create(message.code(), maskAround(buffer.toString())));
+    }
+    return scrubbed;
+  }
+
+  /** Masks the text like {@link #mask(String)}, except for the pseudonyms it contains. */
+  private static String maskAround(String text) {
+    StringBuilder masked = new StringBuilder(text.length());
+    Matcher pseudonym = PSEUDONYM.matcher(text);
+    int last = 0;
+    while (pseudonym.find()) {
+      masked.append(mask(text.substring(last, pseudonym.start()))).append(pseudonym.group());
+      last = pseudonym.end();
+    }
+    return masked.append(mask(text.substring(last))).toString();
+  }
+
+  private String pseudonymName(String name, Map<String, String> pseudonyms) {
+    return pseudonyms.computeIfAbsent(name, n -> "user-" + digest("name:" + n, 6));
+  }
+
+  private String pseudonymMail(String mail, Map<String, String> pseudonyms) {
+    return pseudonyms.computeIfAbsent(
+        mail, m -> "user-" + digest("mail:" + m.toLowerCase(Locale.ROOT), 6) + "@example.org");
+  }
+
+  /**
+   * Replaces a commit id by another 40 hex digit id. The same id always gets the same pseudonym, so
+   * that parents still point to the pseudonym of the recorded parent commit.
+   */
+  private String pseudonymId(String id) {
+    return digest("commit:" + id, 20);
+  }
+
+  private List<String> pseudonymIds(List<String> ids) {
+    List<String> pseudonyms = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      pseudonyms.add(pseudonymId(id));
+    }
+    return pseudonyms;
+  }
+
+  /** Push groups name the target ref and new tip of a push, only their identity is kept. */
+  private String pseudonymPush(String pushGroup) {
+    return "push-" + digest("push:" + pushGroup, 6);
+  }
+
+  /** Returns the first bytes of the salted SHA-256 digest of the value, in hex. */
+  private String digest(String value, int length) {
+    try {
+      MessageDigest sha = MessageDigest.getInstance("SHA-256");
+      sha.update(this.salt);
+      byte[] hash = sha.digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; i < length; i++) {
+        hex.append(String.format("%02x", hash[i]));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /** Replaces every visible character, keeping the length and whitespace of the text. */
+  private static String mask(String text) {
+    StringBuilder masked = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      masked.append(Character.isWhitespace(c) ? c : 'x');
+    }
+    return masked.toString();
+  }
+}
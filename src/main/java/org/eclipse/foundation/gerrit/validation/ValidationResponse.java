@@ -53,4 +53,23 @@ public abstract class ValidationResponse {
     builder.append("]");
     return builder.toString();
   }
+
+  static Builder builder() {
+    return new AutoValue_ValidationResponse.Builder();
+  }
+
+  @AutoValue.Builder
+  abstract static class Builder {
+    public abstract Builder passed(boolean passed);
+
+    public abstract Builder errorCount(int errorCount);
+
+    public abstract Builder time(String time);
+
+    public abstract Builder commits(Map<String, CommitStatus> commits);
+
+    public abstract Builder trackedProject(boolean trackedProject);
+
+    abstract ValidationResponse build();
+  }
 }
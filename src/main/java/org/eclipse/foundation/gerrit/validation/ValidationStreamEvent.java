@@ -0,0 +1,62 @@
+/**
+ * ***************************************************************************** Copyright (C) 2020
+ * Eclipse Foundation
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ****************************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import com.google.auto.value.AutoValue;
+import com.google.gerrit.common.Nullable;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+/**
+ * A single line of a streamed validation response. Each commit is reported as soon as it has been
+ * validated with its hash and status, and the stream ends with a summary line that only carries the
+ * overall result (its commits map is empty).
+ */
+@AutoValue
+public abstract class ValidationStreamEvent {
+  @Nullable
+  public abstract String hash();
+
+  @Nullable
+  public abstract CommitStatus status();
+
+  @Nullable
+  public abstract ValidationResponse summary();
+
+  public static JsonAdapter<ValidationStreamEvent> jsonAdapter(Moshi moshi) {
+    return new AutoValue_ValidationStreamEvent.MoshiJsonAdapter(moshi);
+  }
+
+  static ValidationStreamEvent ofCommit(String hash, CommitStatus status) {
+    return new AutoValue_ValidationStreamEvent(hash, status, null);
+  }
+
+  static ValidationStreamEvent ofSummary(ValidationResponse summary) {
+    return new AutoValue_ValidationStreamEvent(null, null, summary);
+  }
+
+  boolean isSummary() {
+    return summary() != null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("ValidationStreamEvent [hash()=");
+    builder.append(hash());
+    builder.append(", status()=");
+    builder.append(status());
+    builder.append(", summary()=");
+    builder.append(summary());
+    builder.append("]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+public class HedgedAPIServiceTest {
+  private static final ValidationRequest REQUEST =
+      ValidationRequest.builder()
+          .repoUrl("technology.dash")
+          .provider("gerrit")
+          .strictMode(true)
+          .commits(Collections.emptyList())
+          .build();
+
+  private final FakeAPIService delegate = new FakeAPIService();
+  private HedgedAPIService service;
+
+  @After
+  public void stop() {
+    if (service != null) {
+      service.stop();
+    }
+  }
+
+  @Test
+  public void fastPrimaryIsNotHedged() throws Exception {
+    service = new HedgedAPIService(delegate, 95, 20, 20, 100, new DisabledMetricMaker());
+    CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+    Response<ValidationResponse> response = success();
+    delegate.calls.get(0).complete(response);
+
+    assertSame(response, result.get(1, TimeUnit.SECONDS));
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertEquals(1, delegate.calls.size());
+  }
+
+  @Test
+  public void slowPrimaryIsHedgedAndCancelled() throws Exception {
+    service = new HedgedAPIService(delegate, 95, 20, 20, 100, new DisabledMetricMaker());
+    CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+    awaitCalls(2);
+    Response<ValidationResponse> response = success();
+    delegate.calls.get(1).complete(response);
+
+    assertSame(response, result.get(1, TimeUnit.SECONDS));
+    assertTrue(delegate.calls.get(0).isCancelled());
+  }
+
+  @Test
+  public void exhaustedBudgetSkipsHedge() throws Exception {
+    service = new HedgedAPIService(delegate, 95, 20, 20, 0, new DisabledMetricMaker());
+    CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+    TimeUnit.MILLISECONDS.sleep(100);
+
+    assertEquals(1, delegate.calls.size());
+    assertFalse(result.isDone());
+  }
+
+  @Test
+  public void failedPrimaryWaitsForHedge() throws Exception {
+    service = new HedgedAPIService(delegate, 95, 20, 20, 100, new DisabledMetricMaker());
+    CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+    awaitCalls(2);
+    delegate.calls.get(0).completeExceptionally(new IOException("connection reset"));
+    assertFalse(result.isDone());
+
+    Response<ValidationResponse> response = success();
+    delegate.calls.get(1).complete(response);
+    assertSame(response, result.get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void delayFollowsObservedLatencies() throws Exception {
+    // the median keeps a single slow call, such as the first one, from moving the delay
+    service = new HedgedAPIService(delegate, 50, 10, 1000, 0, new DisabledMetricMaker());
+    assertEquals(1000, service.hedgeDelayMillis());
+    for (int i = 0; i < 20; i++) {
+      CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+      delegate.calls.get(i).complete(success());
+      result.get(1, TimeUnit.SECONDS);
+    }
+    assertEquals(10, service.hedgeDelayMillis());
+  }
+
+  @Test
+  public void hedgedExchangesDoNotLowerDelay() throws Exception {
+    // a low percentile, which samples of cancelled hedges would drag down to the minimum delay
+    service = new HedgedAPIService(delegate, 25, 10, 1000, 100, new DisabledMetricMaker());
+    for (int i = 0; i < 20; i++) {
+      CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+      TimeUnit.MILLISECONDS.sleep(50);
+      delegate.calls.get(delegate.calls.size() - 1).complete(success());
+      result.get(1, TimeUnit.SECONDS);
+    }
+    long delay = service.hedgeDelayMillis();
+    assertTrue(delay >= 50);
+
+    // the primary call answers right after the hedge was sent, which is then cancelled
+    for (int i = 0; i < 20; i++) {
+      int calls = delegate.calls.size();
+      CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+      awaitCalls(calls + 2);
+      delegate.calls.get(calls).complete(success());
+      result.get(1, TimeUnit.SECONDS);
+      assertTrue(delegate.calls.get(calls + 1).isCancelled());
+    }
+    assertTrue(service.hedgeDelayMillis() >= delay);
+  }
+
+  @Test
+  public void stoppedServiceCallsDelegateDirectly() throws Exception {
+    service = new HedgedAPIService(delegate, 95, 20, 20, 100, new DisabledMetricMaker());
+    service.stop();
+    CompletableFuture<Response<ValidationResponse>> result = service.validate(REQUEST);
+    Response<ValidationResponse> response = success();
+    delegate.calls.get(0).complete(response);
+
+    assertSame(response, result.get(1, TimeUnit.SECONDS));
+    assertEquals(1, delegate.calls.size());
+  }
+
+  private void awaitCalls(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (delegate.calls.size() < count && System.nanoTime() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(5);
+    }
+    assertEquals(count, delegate.calls.size());
+  }
+
+  private static Response<ValidationResponse> success() {
+    return Response.success(
+        ValidationResponse.builder()
+            .passed(true)
+            .errorCount(0)
+            .time("2020-01-01T00:00:00Z")
+            .commits(Collections.emptyMap())
+            .trackedProject(true)
+            .build());
+  }
+
+  /** Hands out a pending future for every call, completed by the tests. */
+  private static final class FakeAPIService implements APIService {
+    final List<CompletableFuture<Response<ValidationResponse>>> calls =
+        new CopyOnWriteArrayList<>();
+
+    @Override
+    public CompletableFuture<Response<ValidationResponse>> validate(ValidationRequest request) {
+      CompletableFuture<Response<ValidationResponse>> call = new CompletableFuture<>();
+      calls.add(call);
+      return call;
+    }
+
+    @Override
+    public CompletableFuture<Response<ResponseBody>> validateStream(RequestBody request) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
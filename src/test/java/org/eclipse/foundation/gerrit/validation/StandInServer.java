@@ -0,0 +1,238 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.foundation.gerrit.validation.CommitStatus.CommitStatusMessage;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.HttpUrl;
+import okhttp3.internal.Util;
+import okio.Buffer;
+import okio.Okio;
+
+/**
+ * Local stand-in for the ECA validation API, serving both the regular {@code /git/eca} exchange
+ * and its streaming {@code /git/eca/stream} variant. Commits are checked by a pluggable {@link
+ * CommitValidator}, which allows exercising the plugin without reaching api.eclipse.org.
+ */
+final class StandInServer implements AutoCloseable {
+  static final String VALIDATE_PATH = "/git/eca";
+  static final String STREAM_PATH = "/git/eca/stream";
+
+  /** Validates a single commit on behalf of the stand-in server. */
+  @FunctionalInterface
+  interface CommitValidator {
+    /**
+     * @param repoUrl the repository the commit was pushed to
+     * @param commit the commit to validate
+     * @return the status reported for the commit
+     * @throws InterruptedException if interrupted while validating
+     */
+    CommitStatus validate(String repoUrl, Commit commit) throws InterruptedException;
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final CommitValidator validator;
+  private final JsonAdapter<ValidationRequest> requestAdapter;
+  private final JsonAdapter<ValidationResponse> responseAdapter;
+  private final JsonAdapter<Commit> commitAdapter;
+  private final JsonAdapter<ValidationStreamEvent> eventAdapter;
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  /**
+   * Starts a stand-in server on the loopback interface.
+   *
+   * @param port the port to listen on, 0 to pick a free one
+   * @param validator validates the commits of each request
+   * @param streaming whether the streaming exchange is served, when false it answers with a 404
+   *     like an API that predates it
+   * @throws IOException if the server could not be bound
+   */
+  StandInServer(int port, CommitValidator validator, boolean streaming) throws IOException {
+    this.validator = validator;
+    Moshi moshi = new Moshi.Builder().add(JsonAdapterFactory.create()).build();
+    this.requestAdapter = moshi.adapter(ValidationRequest.class);
+    this.responseAdapter = moshi.adapter(ValidationResponse.class);
+    this.commitAdapter = moshi.adapter(Commit.class);
+    this.eventAdapter = moshi.adapter(ValidationStreamEvent.class);
+
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.executor = Executors.newCachedThreadPool(Util.threadFactory("ECA stand-in server", true));
+    this.server.setExecutor(this.executor);
+    this.server.createContext(VALIDATE_PATH, this::handleValidate);
+    if (streaming) {
+      this.server.createContext(STREAM_PATH, this::handleStream);
+    }
+    this.server.start();
+  }
+
+  /** Validator accepting every commit, as the API does for covered authors. */
+  static CommitValidator acceptAll() {
+    return (repoUrl, commit) ->
+        CommitStatus.builder()
+            .messages(
+                Collections.singletonList(
+                    CommitStatusMessage.create(
+                        200,
+                        String.format(
+                            "The author of %1$s is covered by the necessary legal agreements",
+                            commit.hash()))))
+            .warnings(Collections.emptyList())
+            .errors(Collections.emptyList())
+            .build();
+  }
+
+  /** Returns the number of requests received on either exchange. */
+  int requestCount() {
+    return this.requestCount.get();
+  }
+
+  HttpUrl baseUrl() {
+    InetSocketAddress address = this.server.getAddress();
+    return new HttpUrl.Builder()
+        .scheme("http")
+        .host(address.getAddress().getHostAddress())
+        .port(address.getPort())
+        .build();
+  }
+
+  @Override
+  public void close() {
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+  private void handleValidate(HttpExchange ex) throws IOException {
+    this.requestCount.incrementAndGet();
+    try {
+      if (!"POST".equals(ex.getRequestMethod())) {
+        ex.sendResponseHeaders(405, -1);
+        return;
+      }
+      // a single path context also receives longer paths, only answer the exact one
+      if (!VALIDATE_PATH.equals(ex.getRequestURI().getPath())) {
+        ex.sendResponseHeaders(404, -1);
+        return;
+      }
+      ValidationRequest request =
+          this.requestAdapter.fromJson(Okio.buffer(Okio.source(ex.getRequestBody())));
+      Map<String, CommitStatus> commits = new LinkedHashMap<>();
+      for (Commit commit : request.commits()) {
+        commits.put(commit.hash(), this.validator.validate(request.repoUrl(), commit));
+      }
+      ValidationResponse response = summarize(commits, commits);
+
+      Buffer body = new Buffer();
+      this.responseAdapter.toJson(body, response);
+      ex.getResponseHeaders().set("Content-Type", "application/json");
+      // the API reports failed validations with an error status
+      ex.sendResponseHeaders(response.passed() ? 200 : 403, body.size());
+      try (OutputStream out = ex.getResponseBody()) {
+        body.writeTo(out);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      ex.close();
+    }
+  }
+
+  private void handleStream(HttpExchange ex) throws IOException {
+    this.requestCount.incrementAndGet();
+    try {
+      if (!"POST".equals(ex.getRequestMethod())) {
+        ex.sendResponseHeaders(405, -1);
+        return;
+      }
+      String contentType = ex.getRequestHeaders().getFirst("Content-Type");
+      if (contentType == null || !contentType.startsWith(APIService.NDJSON.toString())) {
+        ex.sendResponseHeaders(415, -1);
+        return;
+      }
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8));
+      String headerLine = reader.readLine();
+      ValidationRequest header =
+          headerLine == null ? null : this.requestAdapter.fromJson(headerLine);
+      if (header == null) {
+        ex.sendResponseHeaders(400, -1);
+        return;
+      }
+
+      ex.getResponseHeaders().set("Content-Type", APIService.NDJSON.toString());
+      ex.sendResponseHeaders(200, 0);
+      try (OutputStream out = ex.getResponseBody()) {
+        Map<String, CommitStatus> commits = new LinkedHashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.isEmpty()) {
+            continue;
+          }
+          Commit commit = this.commitAdapter.fromJson(line);
+          CommitStatus status = this.validator.validate(header.repoUrl(), commit);
+          commits.put(commit.hash(), status);
+          // emit each verdict as soon as it is known
+          writeLine(out, ValidationStreamEvent.ofCommit(commit.hash(), status));
+        }
+        writeLine(
+            out, ValidationStreamEvent.ofSummary(summarize(commits, Collections.emptyMap())));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      ex.close();
+    }
+  }
+
+  private void writeLine(OutputStream out, ValidationStreamEvent event) throws IOException {
+    Buffer line = new Buffer();
+    this.eventAdapter.toJson(line, event);
+    line.writeByte('\n');
+    line.writeTo(out);
+    out.flush();
+  }
+
+  private static ValidationResponse summarize(
+      Map<String, CommitStatus> validated, Map<String, CommitStatus> reported) {
+    int errorCount = 0;
+    for (CommitStatus status : validated.values()) {
+      errorCount += status.errors().size();
+    }
+    return ValidationResponse.builder()
+        .passed(errorCount == 0)
+        .errorCount(errorCount)
+        .time(Instant.now().toString())
+        .commits(reported)
+        .trackedProject(true)
+        .build();
+  }
+}
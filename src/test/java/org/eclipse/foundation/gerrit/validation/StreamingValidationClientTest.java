@@ -0,0 +1,177 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.foundation.gerrit.validation.CommitStatus.CommitStatusMessage;
+import org.junit.After;
+import org.junit.Test;
+
+public class StreamingValidationClientTest {
+  private static final long NO_RETRY = 60_000;
+
+  private StandInServer server;
+
+  @After
+  public void close() {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void reportsEachCommitFromTheStream() throws Exception {
+    StreamingValidationClient client = newClient(StandInServer.acceptAll(), true, NO_RETRY);
+    List<String> reported = new ArrayList<>();
+
+    Optional<ValidationResponse> response =
+        client.validate(
+            request("a", "b", "c"),
+            (hash, status) -> {
+              reported.add(hash);
+              return true;
+            });
+
+    assertTrue(response.isPresent());
+    assertTrue(response.get().passed());
+    assertEquals(Arrays.asList("a", "b", "c"), reported);
+    assertEquals(reported, new ArrayList<>(response.get().commits().keySet()));
+  }
+
+  @Test
+  public void stopsAtFirstRejectedCommit() throws Exception {
+    StandInServer.CommitValidator acceptAll = StandInServer.acceptAll();
+    StreamingValidationClient client =
+        newClient(
+            (repoUrl, commit) ->
+                "b".equals(commit.hash()) ? rejected() : acceptAll.validate(repoUrl, commit),
+            true,
+            NO_RETRY);
+
+    Optional<ValidationResponse> response =
+        client.validate(request("a", "b", "c"), (hash, status) -> status.errors().isEmpty());
+
+    assertTrue(response.isPresent());
+    assertFalse(response.get().passed());
+    assertEquals(1, response.get().errorCount());
+    assertEquals(Arrays.asList("a", "b"), new ArrayList<>(response.get().commits().keySet()));
+  }
+
+  @Test
+  public void fallsBackWhenStreamingIsNotServed() throws Exception {
+    StreamingValidationClient client = newClient(StandInServer.acceptAll(), false, NO_RETRY);
+
+    assertFalse(client.validate(request("a"), (hash, status) -> true).isPresent());
+    // declined exchanges are not tried again until the retry interval passed
+    assertFalse(client.validate(request("a"), (hash, status) -> true).isPresent());
+    assertEquals(1, server.requestCount());
+  }
+
+  @Test
+  public void triesStreamingAgainAfterRetryInterval() throws Exception {
+    StreamingValidationClient client = newClient(StandInServer.acceptAll(), false, 0);
+
+    assertFalse(client.validate(request("a"), (hash, status) -> true).isPresent());
+    assertFalse(client.validate(request("a"), (hash, status) -> true).isPresent());
+    assertEquals(2, server.requestCount());
+  }
+
+  @Test
+  public void fallsBackWhenStreamBreaks() throws Exception {
+    StandInServer.CommitValidator acceptAll = StandInServer.acceptAll();
+    StreamingValidationClient client =
+        newClient(
+            (repoUrl, commit) -> {
+              if ("b".equals(commit.hash())) {
+                throw new IllegalStateException("connection lost");
+              }
+              return acceptAll.validate(repoUrl, commit);
+            },
+            true,
+            NO_RETRY);
+
+    assertFalse(client.validate(request("a", "b"), (hash, status) -> true).isPresent());
+    // a broken stream does not disable the exchange
+    assertTrue(client.validate(request("a"), (hash, status) -> true).isPresent());
+  }
+
+  @Test
+  public void longStreamIsNotCutOff() throws Exception {
+    StandInServer.CommitValidator acceptAll = StandInServer.acceptAll();
+    // each commit answers within the read timeout, the whole stream takes longer than a call may
+    StreamingValidationClient client =
+        newClient(
+            (repoUrl, commit) -> {
+              TimeUnit.SECONDS.sleep(2);
+              return acceptAll.validate(repoUrl, commit);
+            },
+            true,
+            NO_RETRY);
+
+    Optional<ValidationResponse> response =
+        client.validate(request("a", "b", "c"), (hash, status) -> true);
+
+    assertTrue(response.isPresent());
+    assertEquals(3, response.get().commits().size());
+    assertEquals(1, server.requestCount());
+  }
+
+  private StreamingValidationClient newClient(
+      StandInServer.CommitValidator validator, boolean streaming, long retryIntervalMillis)
+      throws Exception {
+    server = new StandInServer(0, validator, streaming);
+    return new StreamingValidationClient(
+        server.baseUrl(), new RetrofitFactory(), retryIntervalMillis);
+  }
+
+  private static CommitStatus rejected() {
+    return CommitStatus.builder()
+        .messages(Collections.emptyList())
+        .warnings(Collections.emptyList())
+        .errors(
+            Collections.singletonList(
+                CommitStatusMessage.create(-405, "No valid ECA on file for the author")))
+        .build();
+  }
+
+  private static ValidationRequest request(String... hashes) {
+    List<Commit> commits = new ArrayList<>();
+    for (String hash : hashes) {
+      GitUser user = GitUser.builder().name("Jane Doe").mail("jane@example.org").build();
+      commits.add(
+          Commit.builder()
+              .hash(hash)
+              .subject("Fix " + hash)
+              .body("Fix " + hash + "\n\nSigned-off-by: Jane Doe <jane@example.org>")
+              .parents(Collections.emptyList())
+              .author(user)
+              .committer(user)
+              .head(true)
+              .build());
+    }
+    return ValidationRequest.builder()
+        .repoUrl("technology.dash")
+        .provider("gerrit")
+        .strictMode(true)
+        .commits(commits)
+        .build();
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.foundation.gerrit.validation.CommitStatus.CommitStatusMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrafficRecorderTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final TrafficLog format = new TrafficLog();
+
+  @Test
+  public void readStopsAtPartialRecord() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    TrafficRecorder recorder = new TrafficRecorder(file, Long.MAX_VALUE, 0);
+    recorder.record(1, 10, "push", request(), response());
+    recorder.close();
+    byte[] partial = format.encode(TrafficRecord.create(2, 20, "push", request(), response()));
+    Files.write(file, slice(partial), StandardOpenOption.APPEND);
+
+    assertEquals(1, format.read(file).size());
+  }
+
+  @Test
+  public void readStopsAtCorruptRecord() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    TrafficRecorder recorder = new TrafficRecorder(file, Long.MAX_VALUE, 0);
+    recorder.record(1, 10, "push", request(), response());
+    recorder.close();
+    byte[] corrupt = format.encode(TrafficRecord.create(2, 20, "push", request(), response()));
+    // keep the length prefix but break the deflated blobs at the end of the payload
+    for (int i = corrupt.length - 16; i < corrupt.length; i++) {
+      corrupt[i] = (byte) 0xff;
+    }
+    Files.write(file, corrupt, StandardOpenOption.APPEND);
+
+    assertEquals(1, format.read(file).size());
+  }
+
+  @Test
+  public void openTruncatesPartialRecord() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    record(new TrafficRecorder(file, Long.MAX_VALUE, 0), 1);
+    byte[] partial = format.encode(TrafficRecord.create(2, 20, "push", request(), response()));
+    Files.write(file, slice(partial), StandardOpenOption.APPEND);
+
+    record(new TrafficRecorder(file, Long.MAX_VALUE, 0), 3);
+
+    List<TrafficRecord> records = format.read(file);
+    assertEquals(2, records.size());
+    assertEquals(3, records.get(1).timestamp());
+    assertEquals(format.validLength(file), Files.size(file));
+  }
+
+  @Test
+  public void openRotatesForeignFile() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    Files.write(file, "not a traffic log".getBytes("UTF-8"));
+
+    record(new TrafficRecorder(file, Long.MAX_VALUE, 1), 1);
+
+    assertEquals(1, format.read(file).size());
+    Path rotated = folder.getRoot().toPath().resolve("traffic.log.1");
+    assertEquals("not a traffic log", new String(Files.readAllBytes(rotated), "UTF-8"));
+  }
+
+  @Test
+  public void rotatesFullLogAndDropsOldest() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    // every record fills the log, so each following one rotates it
+    TrafficRecorder recorder = new TrafficRecorder(file, 1, 2);
+    for (long timestamp = 1; timestamp <= 4; timestamp++) {
+      recorder.record(timestamp, 10, "push", request(), response());
+    }
+    recorder.close();
+
+    Path dir = folder.getRoot().toPath();
+    assertEquals(1, format.read(file).size());
+    assertEquals(4, format.read(file).get(0).timestamp());
+    assertEquals(3, format.read(dir.resolve("traffic.log.1")).get(0).timestamp());
+    assertEquals(2, format.read(dir.resolve("traffic.log.2")).get(0).timestamp());
+    assertFalse(Files.exists(dir.resolve("traffic.log.3")));
+  }
+
+  @Test
+  public void commitIdsArePseudonymized() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    TrafficRecorder recorder = new TrafficRecorder(file, Long.MAX_VALUE, 0);
+    recorder.record(1, 10, "push", request(), acceptedResponse());
+    recorder.record(2, 20, "push", request(), acceptedResponse());
+    recorder.close();
+
+    List<TrafficRecord> records = format.read(file);
+    Commit first = records.get(0).request().commits().get(0);
+    Commit second = records.get(1).request().commits().get(0);
+    assertTrue(first.hash().matches("[0-9a-f]{40}"));
+    assertNotEquals(request().commits().get(0).hash(), first.hash());
+    assertNotEquals(request().commits().get(0).parents(), first.parents());
+    assertEquals(first.hash(), second.hash());
+    assertEquals(first.parents(), second.parents());
+    assertEquals(records.get(0).pushGroup(), records.get(1).pushGroup());
+    assertFalse(first.body().contains("jane@example.org"));
+
+    String hash = request().commits().get(0).hash();
+    Map<String, CommitStatus> statuses = records.get(0).response().commits();
+    assertEquals(Collections.singleton(first.hash()), statuses.keySet());
+    String message = statuses.get(first.hash()).messages().get(0).message();
+    assertFalse(message.contains(hash));
+    assertFalse(message.contains("Jane Doe"));
+    assertFalse(message.contains("jdoe"));
+    // the recorded id stays, so that messages still match the recorded commit
+    assertTrue(message.contains(first.hash()));
+  }
+
+  @Test
+  public void failedExchangesKeepOnlyTheFailureType() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    TrafficRecorder recorder = new TrafficRecorder(file, Long.MAX_VALUE, 0);
+    recorder.recordFailure(
+        1,
+        10,
+        "push",
+        request(),
+        new ExecutionException(new SocketTimeoutException("timeout talking to api.eclipse.org")));
+    recorder.close();
+
+    TrafficRecord record = format.read(file).get(0);
+    assertTrue(record.failed());
+    assertNull(record.response());
+    assertEquals(SocketTimeoutException.class.getName(), record.failure());
+  }
+
+  private static void record(TrafficRecorder recorder, long timestamp) {
+    recorder.record(timestamp, 10, "push", request(), response());
+    recorder.close();
+  }
+
+  private static byte[] slice(byte[] record) {
+    byte[] half = new byte[record.length / 2];
+    System.arraycopy(record, 0, half, 0, half.length);
+    return half;
+  }
+
+  static ValidationRequest request() {
+    GitUser user = GitUser.builder().name("Jane Doe").mail("jane@example.org").build();
+    Commit commit =
+        Commit.builder()
+            .hash("0123456789abcdef0123456789abcdef01234567")
+            .subject("Fix the build")
+            .body("Fix the build\n\nSigned-off-by: Jane Doe <jane@example.org>")
+            .parents(Collections.singletonList("89abcdef0123456789abcdef0123456789abcdef"))
+            .author(user)
+            .committer(user)
+            .head(true)
+            .build();
+    return ValidationRequest.builder()
+        .repoUrl("technology.dash")
+        .provider("gerrit")
+        .strictMode(true)
+        .commits(Collections.singletonList(commit))
+        .build();
+  }
+
+  /** Response accepting the commit of {@link #request()}, naming it, its author and an account. */
+  static ValidationResponse acceptedResponse() {
+    String hash = request().commits().get(0).hash();
+    CommitStatus status =
+        CommitStatus.builder()
+            .messages(
+                Collections.singletonList(
+                    CommitStatusMessage.create(
+                        200,
+                        "The author of "
+                            + hash
+                            + ", Jane Doe (jdoe), is covered by the necessary legal agreements")))
+            .warnings(Collections.emptyList())
+            .errors(Collections.emptyList())
+            .build();
+    return ValidationResponse.builder()
+        .passed(true)
+        .errorCount(0)
+        .time("2020-01-01T00:00:00Z")
+        .commits(Collections.singletonMap(hash, status))
+        .trackedProject(true)
+        .build();
+  }
+
+  static ValidationResponse response() {
+    return ValidationResponse.builder()
+        .passed(true)
+        .errorCount(0)
+        .time("2020-01-01T00:00:00Z")
+        .commits(Collections.emptyMap())
+        .trackedProject(true)
+        .build();
+  }
+}
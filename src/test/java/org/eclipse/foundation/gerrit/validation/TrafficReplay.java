@@ -0,0 +1,319 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.validators.CommitValidationException;
+
+import okhttp3.internal.Util;
+
+/**
+ * Replays traffic logs written by {@link TrafficRecorder} through {@link
+ * EclipseCommitValidationListener}, against a {@link StandInServer} answering with the recorded
+ * verdicts. The first call for each commit takes the latency of its recorded exchange, and fails
+ * when that exchange failed. Extra calls, such as hedges and retries, draw a latency and failure
+ * from all recorded exchanges with a seeded random generator, so that a hedge can win against a
+ * slow primary call. Pushes start at their original pace, optionally scaled, and the latencies
+ * seen by the listener are reported next to the recorded ones.
+ *
+ * <p>Plugin options can be set with {@code -c}, for instance {@code -c hedgeRequests=true}, to
+ * measure their effect on recorded traffic. It runs from the test class path, as described in the
+ * plugin configuration documentation.
+ */
+final class TrafficReplay {
+  private static final String USAGE =
+      "usage: TrafficReplay [--rate <factor>] [--threads <count>] [--seed <seed>]"
+          + " [-c <option>=<value>]... <log>...";
+  private static final String PLUGIN_NAME = "eca-validation";
+  /** Seed of the draws for extra calls, so that runs on the same log can be compared. */
+  private static final long DEFAULT_SEED = 1;
+  /** Id of the empty tree, replayed commits do not need content. */
+  private static final String EMPTY_TREE = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
+
+  /** A commit to validate, in the push it was recorded in. */
+  private static final class Step {
+    final String projectName;
+    final RevCommit commit;
+    final String pushGroup;
+
+    Step(String projectName, RevCommit commit, String pushGroup) {
+      this.projectName = projectName;
+      this.commit = commit;
+      this.pushGroup = pushGroup;
+    }
+  }
+
+  /** Latency and failure of a recorded call. */
+  private static final class Outcome {
+    final long delayNanos;
+    final String failure;
+
+    Outcome(long delayNanos, String failure) {
+      this.delayNanos = delayNanos;
+      this.failure = failure;
+    }
+  }
+
+  /** Outcome of a replay. */
+  static final class Result {
+    final List<Long> recordedLatencies = new ArrayList<>();
+    final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger rejected = new AtomicInteger();
+    /** Push groups in which at least one commit was rejected or failed. */
+    final Set<String> rejectedPushes = ConcurrentHashMap.newKeySet();
+    final AtomicInteger injectedFailures = new AtomicInteger();
+    long recordedFailures;
+    int pushCount;
+    int calls;
+    long wallMillis;
+  }
+
+  private TrafficReplay() {}
+
+  public static void main(String[] args) throws Exception {
+    double rate = 1;
+    int threads = 64;
+    long seed = DEFAULT_SEED;
+    Config config = new Config();
+    List<Path> logs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--rate":
+          rate = Double.parseDouble(value(args, ++i));
+          break;
+        case "--threads":
+          threads = Integer.parseInt(value(args, ++i));
+          break;
+        case "--seed":
+          seed = Long.parseLong(value(args, ++i));
+          break;
+        case "-c":
+          String[] option = value(args, ++i).split("=", 2);
+          config.setString(
+              "plugin", PLUGIN_NAME, option[0], option.length > 1 ? option[1] : "true");
+          break;
+        default:
+          logs.add(Paths.get(args[i]));
+      }
+    }
+    if (logs.isEmpty() || rate <= 0 || threads <= 0) {
+      throw new IllegalArgumentException(USAGE);
+    }
+
+    TrafficLog format = new TrafficLog();
+    List<TrafficRecord> records = new ArrayList<>();
+    for (Path log : logs) {
+      records.addAll(format.read(log));
+    }
+    if (records.isEmpty()) {
+      System.out.println("No traffic to replay");
+      return;
+    }
+    Result result = replay(records, config, rate, threads, seed);
+
+    System.out.printf(
+        "Recorded %1$d exchanges, %2$d failed without a response%n",
+        records.size(), result.recordedFailures);
+    System.out.printf(
+        "Replayed %1$d commits in %2$d pushes in %3$d ms (rate x%4$s), %5$d rejected or failed%n",
+        result.latencies.size(), result.pushCount, result.wallMillis, rate, result.rejected.get());
+    // the HTTP client retries some dropped connections, so not every one fails a commit
+    System.out.printf(
+        "Stand-in dropped %1$d of %2$d calls%n", result.injectedFailures.get(), result.calls);
+    printLatencies("Recorded API latency", result.recordedLatencies);
+    printLatencies("Replayed validation latency", result.latencies);
+  }
+
+  /**
+   * Replays recorded exchanges through a listener configured with {@code config}, against a
+   * stand-in server started for the replay.
+   *
+   * @param records the exchanges to replay in any order, at least one
+   * @param config the Gerrit configuration, holding the plugin options
+   * @param rate factor applied to the pace of recorded pushes
+   * @param threads number of pushes replayed at the same time
+   * @param seed seed of the draws for extra calls
+   * @return what was replayed and the latencies seen by the listener
+   */
+  static Result replay(
+      List<TrafficRecord> records, Config config, double rate, int threads, long seed)
+      throws Exception {
+    records = new ArrayList<>(records);
+    records.sort(Comparator.comparingLong(TrafficRecord::timestamp));
+    Result result = new Result();
+
+    // replayed commits get new ids, so recorded verdicts are looked up by those
+    Map<String, CommitStatus> verdicts = new ConcurrentHashMap<>();
+    Map<String, Queue<Outcome>> recordedOutcomes = new ConcurrentHashMap<>();
+    List<Outcome> outcomes = new ArrayList<>();
+    Map<String, List<Step>> pushes = new LinkedHashMap<>();
+    Map<String, Long> pushStarts = new LinkedHashMap<>();
+    for (TrafficRecord record : records) {
+      int commitCount = Math.max(1, record.request().commits().size());
+      result.recordedLatencies.add(record.latencyNanos());
+      Outcome outcome = new Outcome(record.latencyNanos() / commitCount, record.failure());
+      outcomes.add(outcome);
+      for (Commit commit : record.request().commits()) {
+        RevCommit replayed = toRevCommit(commit, record.timestamp());
+        recordedOutcomes
+            .computeIfAbsent(replayed.name(), id -> new ConcurrentLinkedQueue<>())
+            .add(outcome);
+        CommitStatus status =
+            record.failed() ? null : record.response().commits().get(commit.hash());
+        if (status != null) {
+          verdicts.put(replayed.name(), status);
+        }
+        pushes
+            .computeIfAbsent(record.pushGroup(), g -> new ArrayList<>())
+            .add(new Step(record.request().repoUrl(), replayed, record.pushGroup()));
+        pushStarts.putIfAbsent(record.pushGroup(), record.timestamp());
+      }
+    }
+
+    StandInServer.CommitValidator acceptAll = StandInServer.acceptAll();
+    Random random = new Random(seed);
+    try (StandInServer server =
+        new StandInServer(
+            0,
+            (repoUrl, commit) -> {
+              // the first call for a commit replays its own recorded exchange
+              Queue<Outcome> own = recordedOutcomes.get(commit.hash());
+              Outcome outcome = own == null ? null : own.poll();
+              if (outcome == null) {
+                // hedges and retries have no recorded exchange of their own
+                outcome = outcomes.get(random.nextInt(outcomes.size()));
+              }
+              TimeUnit.NANOSECONDS.sleep(outcome.delayNanos);
+              if (outcome.failure != null) {
+                // the stand-in drops the connection, as close as it gets to the recorded failure
+                result.injectedFailures.incrementAndGet();
+                throw new IllegalStateException("Replaying " + outcome.failure);
+              }
+              CommitStatus status = verdicts.get(commit.hash());
+              return status != null ? status : acceptAll.validate(repoUrl, commit);
+            },
+            true)) {
+      EclipseCommitValidationListener listener =
+          new EclipseCommitValidationListener(
+              config, PLUGIN_NAME, server.baseUrl(), Paths.get(""), new DisabledMetricMaker());
+
+      ScheduledExecutorService executor =
+          Executors.newScheduledThreadPool(threads, Util.threadFactory("ECA traffic replay", true));
+      CountDownLatch done = new CountDownLatch(pushes.size());
+      long origin = records.get(0).timestamp();
+      long wallStart = System.nanoTime();
+      for (Map.Entry<String, List<Step>> push : pushes.entrySet()) {
+        long delay = (long) ((pushStarts.get(push.getKey()) - origin) / rate);
+        executor.schedule(
+            () -> {
+              try {
+                // commits of a push are validated one after the other, as Gerrit does
+                for (Step step : push.getValue()) {
+                  long start = System.nanoTime();
+                  try {
+                    listener.validateCommit(step.projectName, step.commit, step.pushGroup);
+                  } catch (CommitValidationException e) {
+                    result.rejected.incrementAndGet();
+                    result.rejectedPushes.add(push.getKey());
+                  }
+                  result.latencies.add(System.nanoTime() - start);
+                }
+              } finally {
+                done.countDown();
+              }
+            },
+            delay,
+            TimeUnit.MILLISECONDS);
+      }
+      done.await();
+      result.wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - wallStart);
+      executor.shutdown();
+      // flushes a traffic log recorded during the replay and stops the hedge timer
+      listener.stop();
+
+      result.pushCount = pushes.size();
+      result.recordedFailures = outcomes.stream().filter(o -> o.failure != null).count();
+      result.calls = server.requestCount();
+    }
+    return result;
+  }
+
+  /**
+   * Builds a commit with the recorded metadata. Its id differs from the recorded hash as the tree
+   * and message are not the original ones.
+   */
+  private static RevCommit toRevCommit(Commit commit, long timestamp) {
+    long seconds = TimeUnit.MILLISECONDS.toSeconds(timestamp);
+    StringBuilder raw = new StringBuilder();
+    raw.append("tree ").append(EMPTY_TREE).append('\n');
+    for (String parent : commit.parents()) {
+      raw.append("parent ").append(parent).append('\n');
+    }
+    raw.append("author ").append(ident(commit.author(), seconds)).append('\n');
+    raw.append("committer ").append(ident(commit.committer(), seconds)).append('\n');
+    raw.append('\n').append(commit.body());
+    return RevCommit.parse(raw.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String ident(GitUser user, long seconds) {
+    return String.format("%1$s <%2$s> %3$d +0000", user.name(), user.mail(), seconds);
+  }
+
+  private static void printLatencies(String label, List<Long> nanos) {
+    List<Long> sorted = new ArrayList<>(nanos);
+    Collections.sort(sorted);
+    System.out.printf(
+        "%1$s: p50=%2$.1f ms, p95=%3$.1f ms, p99=%4$.1f ms, max=%5$.1f ms%n",
+        label,
+        percentile(sorted, 50),
+        percentile(sorted, 95),
+        percentile(sorted, 99),
+        percentile(sorted, 100));
+  }
+
+  private static double percentile(List<Long> sorted, int percentile) {
+    if (sorted.isEmpty()) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile / 100d * sorted.size()) - 1;
+    return sorted.get(Math.max(0, index)) / 1_000_000d;
+  }
+
+  private static String value(String[] args, int index) {
+    if (index >= args.length) {
+      throw new IllegalArgumentException(USAGE);
+    }
+    return args[index];
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * ******************************************************************* Copyright (c) 2020 Eclipse
+ * Foundation and others.
+ *
+ * <p>This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License 2.0 which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * <p>SPDX-License-Identifier: EPL-2.0
+ * ********************************************************************
+ */
+package org.eclipse.foundation.gerrit.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.foundation.gerrit.validation.CommitStatus.CommitStatusMessage;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrafficReplayTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void replaysRecordedVerdicts() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("traffic.log");
+    TrafficRecorder recorder = new TrafficRecorder(file, Long.MAX_VALUE, 0);
+    long latency = TimeUnit.MILLISECONDS.toNanos(20);
+    // pushes a second apart, so that their replayed commits get different ids
+    recorder.record(1_000, latency, "accepted", TrafficRecorderTest.request(), accepted());
+    recorder.record(2_000, latency, "rejected", TrafficRecorderTest.request(), rejected());
+    recorder.close();
+    List<TrafficRecord> records = new TrafficLog().read(file);
+
+    TrafficReplay.Result result = TrafficReplay.replay(records, new Config(), 10, 4, 1);
+
+    assertEquals(2, result.pushCount);
+    assertEquals(2, result.latencies.size());
+    assertEquals(1, result.rejected.get());
+    assertEquals(Collections.singleton(records.get(1).pushGroup()), result.rejectedPushes);
+    assertEquals(0, result.injectedFailures.get());
+    // each commit waited for its recorded latency
+    for (long replayed : result.latencies) {
+      assertTrue(replayed >= latency);
+    }
+  }
+
+  private static ValidationResponse accepted() {
+    return response(
+        true,
+        CommitStatusMessage.create(200, "The author is covered by the necessary legal agreements"),
+        Collections.emptyList());
+  }
+
+  private static ValidationResponse rejected() {
+    CommitStatusMessage error =
+        CommitStatusMessage.create(-405, "No valid ECA on file for the author");
+    return response(false, error, Collections.singletonList(error));
+  }
+
+  private static ValidationResponse response(
+      boolean passed, CommitStatusMessage message, List<CommitStatusMessage> errors) {
+    CommitStatus status =
+        CommitStatus.builder()
+            .messages(Collections.singletonList(message))
+            .warnings(Collections.emptyList())
+            .errors(errors)
+            .build();
+    return ValidationResponse.builder()
+        .passed(passed)
+        .errorCount(errors.size())
+        .time("2020-01-01T00:00:00Z")
+        .commits(
+            Collections.singletonMap(TrafficRecorderTest.request().commits().get(0).hash(), status))
+        .trackedProject(true)
+        .build();
+  }
+}